@@ -7,30 +7,65 @@
 // javac JeffR_Solution.java
 // java JeffR_Solution someFile.txt [someFile2.txt...]
 //
+// to save the counts as a table for later comparison
+// java JeffR_Solution.java --save someTable.tsv someFile.txt
+//
+// the engine is picked from the file's size & content and the machine; to pick one yourself
+// (the S-L-O-W challenge entry only runs this way)
+// java JeffR_Solution.java --engine slow someFile.txt
+//
+// to check every engine against a reference count over generated corpora & track their throughput
+// java JeffR_Solution.java --harness [historyFile]
+//
+// to compare or combine two saved tables
+// java JeffR_Solution.java --diff oldTable.tsv newTable.tsv [threshold]
+// java JeffR_Solution.java --merge oldTable.tsv newTable.tsv mergedTable.tsv
+//
 //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 //
 // Count the frequency of words in a file, S-L-O-W-L-Y
 //
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class JeffR_Solution {
 
-    public static IWordFrequencyCounter getWordFrequencyCounterImpl() {
-        // return new FastCounter();
-        // return new FastCounter2();
-        return new SlowCounter();
+    // engine name from --engine, if any; overrides the selector's pick
+    static String forcedEngine = null;
+
+    public static IWordFrequencyCounter getWordFrequencyCounterImpl(File testFile) throws IOException {
+        String engine = forcedEngine;
+        if( engine != null ) {
+            System.out.println("Engine: " + engine + " (forced via --engine)");
+        }
+        else {
+            WordFrequencyCounterSelector.Decision decision = WordFrequencyCounterSelector.select(testFile);
+            engine = decision.engine;
+            System.out.println("Engine: " + engine + " (" + String.join("; ", decision.reasons) + ")");
+        }
+        return WordFrequencyCounterSelector.create(engine);
     }
 
     ////
@@ -38,7 +73,9 @@ public class JeffR_Solution {
     //
     // validates filespec & access, times the primary algo defined by the interface, dumps the results
     //
-    private static int countWordFrequencyInFile(File testFile) {
+    // optionally saves the counts to tableFile (if non-null) in the CountTable format
+    //
+    private static int countWordFrequencyInFile(File testFile, File tableFile) {
         String testFileName;
         try {
             // canonical path will be fully qualified
@@ -60,16 +97,14 @@ public class JeffR_Solution {
             System.out.println( "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
             System.out.println("Processing " + testFileName + "...");
 
+            // pick the engine up front so sampling the file doesn't count against the algo
+            IWordFrequencyCounter iwfc = getWordFrequencyCounterImpl(testFile);
+
             // time the algo performance
             long startTime = System.nanoTime();
 
             // the actual algo, utilizing common interface
-            IWordFrequencyCounter iwfc = getWordFrequencyCounterImpl();
-            iwfc.setup(testFile);
-            for(String nextWord; (nextWord = iwfc.getNextWord()) != null; ) {
-                iwfc.processWord(nextWord);
-            }
-            iwfc.finish();
+            countWords(iwfc, testFile);
             // we're done processing the file, 
             // we've counted how often each unique word 
             // appears in the file (non-case-sensitive)
@@ -115,6 +150,12 @@ public class JeffR_Solution {
                     + " in " /* + totalTimeMillis + "ms." */ + timeElapsed(elapsedTime));
             System.out.println( "===========");
 
+            // save the counts so they can be diff'd / merged later w/o re-counting
+            if( tableFile != null ) {
+                CountTable.write(wordCounts, tableFile);
+                System.out.println("Saved " + words.size() + " counts to " + tableFile.getCanonicalPath());
+            }
+
             // return the total # of unique words in the file
             return words.size();
 
@@ -127,7 +168,24 @@ public class JeffR_Solution {
 
     }
 
-    private static String timeElapsed(long nanos) {
+    ////
+    // drives any engine through the common interface;
+    // shared by the workhorse & the regression harness so both time the same thing
+    //
+    // engines that only know the word-at-a-time contract are adapted to the batched one
+    //
+    static Map<String,Integer> countWords(IWordFrequencyCounter iwfc, File testFile) throws IOException {
+        IBatchedWordFrequencyCounter batched = WordBatchAdapter.of(iwfc);
+        WordBatch batch = new WordBatch();
+        batched.setup(testFile);
+        while( batched.nextBatch(batch)) {
+            batched.processBatch(batch);
+        }
+        batched.finish();
+        return batched.getWordCounts();
+    }
+
+    static String timeElapsed(long nanos) {
 
         String elapsed = "" + nanos + "ns";
         if( nanos < 1000000 ) {
@@ -168,7 +226,13 @@ public class JeffR_Solution {
 
     public static int processFile(File testFile) {
 
-        return countWordFrequencyInFile(testFile);
+        return countWordFrequencyInFile(testFile, null);
+
+    }
+
+    public static int processFile(File testFile, File tableFile) {
+
+        return countWordFrequencyInFile(testFile, tableFile);
 
     }
 
@@ -177,13 +241,151 @@ public class JeffR_Solution {
         return processFile(testFile);
     }
 
+    ////
+    // compare (--diff) or combine (--merge) two saved count tables
+    //
+    // args[0] is the mode, followed by the two tables, then the threshold (--diff) or output table (--merge)
+    //
+    public static int processTables(String[] args) {
+        String mode = args[0];
+        boolean diff = mode.equals("--diff");
+        if( args.length < 3 || (!diff && args.length < 4)) {
+            System.err.println("usage: " + mode + " tableA tableB " + (diff ? "[threshold]" : "outputTable"));
+            return -0x57; // DOS invalid parameter
+        }
+
+        // a negative threshold would report every shared word as changed
+        long threshold = 0;
+        if( diff && args.length > 3 ) {
+            try {
+                threshold = Long.parseLong(args[3]);
+            }
+            catch( NumberFormatException ex ) {
+                threshold = -1;
+            }
+            if( threshold < 0 ) {
+                System.err.println("threshold " + args[3] + " is not a number >= 0.");
+                return -0x57; // DOS invalid parameter
+            }
+        }
+
+        try {
+            File tableA = new File(args[1]);
+            File tableB = new File(args[2]);
+
+            System.out.println();
+            System.out.println( "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+            System.out.println((diff ? "Diffing " : "Merging ") + tableA.getCanonicalPath() + " with " + tableB.getCanonicalPath() + "...");
+
+            long startTime = System.nanoTime();
+
+            if( diff ) {
+                long[] tally = new long[3];
+                CountTableComparer.diff(tableA, tableB, threshold, new ICountTableDiffListener() {
+
+                    @Override
+                    public void added(String word, long count) {
+                        tally[0]++;
+                        System.out.println("+ " + word + ": " + count);
+                    }
+
+                    @Override
+                    public void removed(String word, long count) {
+                        tally[1]++;
+                        System.out.println("- " + word + ": " + count);
+                    }
+
+                    @Override
+                    public void changed(String word, long oldCount, long newCount) {
+                        tally[2]++;
+                        System.out.println("~ " + word + ": " + oldCount + " -> " + newCount);
+                    }
+
+                });
+
+                System.out.println( "___________");
+                System.out.println( "...Diffed "
+                        + tally[0] + " added, "
+                        + tally[1] + " removed and "
+                        + tally[2] + " changed (by more than " + threshold + ") words"
+                        + " in " + timeElapsed(System.nanoTime() - startTime));
+            }
+            else {
+                File outputTable = new File(args[3]);
+                long uniqueWords = CountTableComparer.merge(tableA, tableB, outputTable);
+
+                System.out.println( "___________");
+                System.out.println( "...Merged "
+                        + uniqueWords + " unique words into " + outputTable.getCanonicalPath()
+                        + " in " + timeElapsed(System.nanoTime() - startTime));
+            }
+            System.out.println( "===========");
+
+            return 0;
+        }
+        catch( IOException ex) {
+            System.err.println("Failure Processing " + ex.getClass().getName() + " " + ex.getMessage());
+            return -(0x1F); // DOS general failure
+        }
+    }
+
     public static void main(String[] args){
 
         String sampleTestFile = "JeffR_Sample_OneLine.txt";
 
+        if( args.length > 0 && args[0].equals("--harness")) {
+            File historyFile = new File(args.length > 1 ? args[1] : RegressionHarness.DEFAULT_HISTORY_FILE);
+            int err = RegressionHarness.run(historyFile);
+            if( err < 0) {
+                System.exit(-err);
+            }
+            return;
+        }
+
+        if( args.length > 0 && (args[0].equals("--diff") || args[0].equals("--merge"))) {
+            int err = processTables(args);
+            if( err < 0) {
+                System.exit(-err);
+            }
+            return;
+        }
+
+        File tableFile = null;
+        int argIndex = 0;
+        while( argIndex < args.length && args[argIndex].startsWith("--")) {
+            String option = args[argIndex++];
+            if( argIndex >= args.length ) {
+                System.err.println(option + " needs a value.");
+                System.exit(0x57); // DOS invalid parameter
+            }
+            String value = args[argIndex++];
+
+            if( option.equals("--engine")) {
+                if( !WordFrequencyCounterSelector.ENGINES.contains(value)) {
+                    System.err.println("unknown engine " + value + ", expected one of " + WordFrequencyCounterSelector.ENGINES);
+                    System.exit(0x57); // DOS invalid parameter
+                }
+                forcedEngine = value;
+            }
+            else if( option.equals("--save")) {
+                tableFile = new File(value);
+            }
+            else {
+                System.err.println("unknown option " + option);
+                System.exit(0x57); // DOS invalid parameter
+            }
+        }
+        args = Arrays.copyOfRange(args, argIndex, args.length);
+
+        if( tableFile != null && args.length != 1 ) {
+            // one table per run, otherwise each file would clobber the last
+            System.err.println("usage: --save table testFile");
+            System.exit(0x57); // DOS invalid parameter
+        }
+
         String[] testFiles;
 
-		if( args.length > 0 ) {
+        if( args.length > 0 ) {
             testFiles = args;
         }
         else {
@@ -192,7 +394,7 @@ public class JeffR_Solution {
 
         for( String testFileName : testFiles) {
 
-            int err = processFile(testFileName);
+            int err = processFile(new File(testFileName), tableFile);
 
             if( err < 0) {
                 // note any additional files won't be processed if one fails
@@ -220,6 +422,307 @@ interface IWordFrequencyCounter {
     public Map<String,Integer> getWordCounts();
 }
 
+//
+// batched flavor of the above: the tokenizer hands over a whole batch of words at once,
+// as (offset, length, hash) triples into a shared char array, instead of one String per call
+//
+interface IBatchedWordFrequencyCounter extends IWordFrequencyCounter {
+
+    // fills batch w/ the next words, false when there are no more;
+    // the batch is only good until the next call
+    public boolean nextBatch(WordBatch batch) throws IOException;
+    public void processBatch(WordBatch batch);
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// a reusable batch of words; the arrays only ever grow, so steady state allocates nothing
+//
+// hash is over the ASCII-lower-cased chars (see lower()), so counters can probe w/o building a String
+//
+// engines that already have Strings (see WordBatchAdapter) can add those as-is instead;
+// word() works for either kind of entry, but a counter reading the triples directly
+// has to check hasStrings() first, since String entries have no triple
+//
+class WordBatch {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    char[] chars;
+    boolean sharedChars = false;
+    int charsUsed = 0;
+
+    int[] offsets = new int[DEFAULT_CAPACITY];
+    int[] lengths = new int[DEFAULT_CAPACITY];
+    int[] hashes = new int[DEFAULT_CAPACITY];
+    String[] words = new String[DEFAULT_CAPACITY];
+    boolean hasStrings = false;
+    int size = 0;
+
+    public void clear() {
+        size = 0;
+        charsUsed = 0;
+        hasStrings = false;
+    }
+
+    ////
+    // point the batch at a tokenizer's own buffer, no copying
+    //
+    public void share(char[] buff) {
+        chars = buff;
+        sharedChars = true;
+    }
+
+    public void add(int offset, int length, int hash) {
+        ensureRoom();
+        offsets[size] = offset;
+        lengths[size] = length;
+        hashes[size] = hash;
+        words[size] = null;
+        size++;
+    }
+
+    ////
+    // keep a word that's already a String, no copying & no hash;
+    // only for engines that hand the Strings straight back to processWord()
+    //
+    public void add(String word) {
+        ensureRoom();
+        words[size] = word;
+        hasStrings = true;
+        size++;
+    }
+
+    public boolean hasStrings() {
+        return hasStrings;
+    }
+
+    private void ensureRoom() {
+        if( size == offsets.length ) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            words = Arrays.copyOf(words, size * 2);
+        }
+    }
+
+    ////
+    // copy a word into the batch's own chars, so it can be probed like a tokenized one
+    //
+    public void append(String word) {
+        int length = word.length();
+        if( chars == null || sharedChars || charsUsed + length > chars.length ) {
+            char[] grown = new char[Math.max(charsUsed + length, chars == null || sharedChars ? 16*1024 : chars.length * 2)];
+            if( chars != null && !sharedChars ) {
+                System.arraycopy(chars, 0, grown, 0, charsUsed);
+            }
+            chars = grown;
+            sharedChars = false;
+        }
+        word.getChars(0, length, chars, charsUsed);
+        add(charsUsed, length, hash(chars, charsUsed, length));
+        charsUsed += length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String word(int index) {
+        if( words[index] != null ) {
+            return words[index];
+        }
+        return new String(chars, offsets[index], lengths[index]);
+    }
+
+    // ASCII only; anything past that is left for String.toLowerCase() to sort out (see BatchCounter)
+    static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for( int pos = offset; pos < offset + length; pos++ ) {
+            hash = 31 * hash + lower(chars[pos]);
+        }
+        return hash;
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// lets the word-at-a-time engines (FastCounter, FastCounter2, SlowCounter) run under the batched contract;
+// words still go through their own getNextWord() & processWord(), just a batch at a time,
+// and stay the Strings the engine made (no copying in & out of the batch's chars)
+//
+class WordBatchAdapter implements IBatchedWordFrequencyCounter {
+
+    IWordFrequencyCounter iwfc;
+
+    public static IBatchedWordFrequencyCounter of(IWordFrequencyCounter iwfc) {
+        if( iwfc instanceof IBatchedWordFrequencyCounter ) {
+            return (IBatchedWordFrequencyCounter)iwfc;
+        }
+        return new WordBatchAdapter(iwfc);
+    }
+
+    public WordBatchAdapter(IWordFrequencyCounter iwfc) {
+        this.iwfc = iwfc;
+    }
+
+    public boolean nextBatch(WordBatch batch) throws IOException {
+        batch.clear();
+        for( String nextWord; batch.size() < WordBatch.DEFAULT_CAPACITY && (nextWord = iwfc.getNextWord()) != null; ) {
+            batch.add(nextWord);
+        }
+        return batch.size() > 0;
+    }
+
+    public void processBatch(WordBatch batch) {
+        for( int index = 0; index < batch.size(); index++ ) {
+            iwfc.processWord(batch.word(index));
+        }
+    }
+
+    public void setup(File testFile) throws IOException {
+        iwfc.setup(testFile);
+    }
+
+    public String getNextWord() throws IOException {
+        return iwfc.getNextWord();
+    }
+
+    public void processWord(String nextWord) {
+        iwfc.processWord(nextWord);
+    }
+
+    public void finish() throws IOException {
+        iwfc.finish();
+    }
+
+    public Map<String, Integer> getWordCounts() {
+        return iwfc.getWordCounts();
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// picks an engine at runtime instead of recompiling with a different one un-commented
+//
+// looks at the file size, the cores & heap we've got,
+// and how fast the vocabulary grows over the first MB of the file
+//
+class WordFrequencyCounterSelector {
+
+    // slow & fast are only here to be forced & measured, never picked:
+    // SlowCounter re-reads the file for every word (minutes on a 60KB file), FastCounter runs at ~1MB/s
+    static final List<String> ENGINES = List.of("slow", "fast", "fast2", "batch");
+
+    static final int SAMPLE_CHARS = 1024*1024;
+
+    // rough heap cost of one unique word: batch's table slot & key, then the HashMap entry w/ its String & Integer
+    static final int HEAP_BYTES_PER_UNIQUE_WORD = 150;
+
+    static class Decision {
+        String engine;
+        List<String> reasons = new ArrayList<>();
+    }
+
+    public static IWordFrequencyCounter create(String engine) {
+        switch( engine ) {
+            case "fast":
+                return new FastCounter();
+            case "fast2":
+                return new FastCounter2();
+            case "slow":
+                return new SlowCounter();
+            case "batch":
+                return new BatchCounter();
+            default:
+                throw new IllegalArgumentException("unknown engine " + engine);
+        }
+    }
+
+    public static Decision select(File testFile) throws IOException {
+        Decision decision = new Decision();
+
+        long fileBytes = testFile.length();
+        int cores = Runtime.getRuntime().availableProcessors();
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+
+        decision.reasons.add(fileBytes + " bytes");
+        decision.reasons.add(cores + " cores, no parallel engine to use them");
+        decision.reasons.add((freeHeap / (1024*1024)) + "MB heap free");
+
+        // batch beats fast & fast2 at any size, and only holds one read buffer of the file at a time
+        decision.engine = "batch";
+        decision.reasons.add("streaming it in batches");
+
+        long projectedUniqueWords = projectUniqueWords(testFile, fileBytes, decision.reasons);
+        if( projectedUniqueWords * HEAP_BYTES_PER_UNIQUE_WORD > freeHeap ) {
+            decision.reasons.add("counts may not fit in heap, no spill-to-disk engine available");
+        }
+        return decision;
+    }
+
+    ////
+    // counts words & unique words over the first SAMPLE_CHARS,
+    // and extrapolates the rate new words show up in the back half of the sample out to the whole file
+    //
+    // one bulk read & a plain scan, so it costs a few ms rather than a noticeable slice of the run
+    //
+    static long projectUniqueWords(File testFile, long fileBytes, List<String> reasons) throws IOException {
+        char[] sample = new char[SAMPLE_CHARS];
+        int sampledChars = 0;
+        try( FileReader reader = new FileReader(testFile)) {
+            for( int actuallyRead; sampledChars < sample.length
+                    && (actuallyRead = reader.read(sample, sampledChars, sample.length - sampledChars)) > 0; ) {
+                sampledChars += actuallyRead;
+            }
+        }
+
+        Map<String,Boolean> seen = new HashMap<>();
+        long sampledWords = 0;
+        long halfwayWords = 0, halfwayUnique = 0;
+        int wordStart = -1;
+        for( int pos = 0; pos <= sampledChars; pos++ ) {
+            char c = pos < sampledChars ? sample[pos] : ' ';
+            boolean whitespace = c == ' ' || c == '\r' || c == '\n' || c == '\t' || c == '\f';
+            if( !whitespace ) {
+                if( wordStart < 0 ) {
+                    wordStart = pos;
+                }
+                continue;
+            }
+            if( wordStart >= 0 ) {
+                seen.put(new String(sample, wordStart, pos - wordStart).toLowerCase(), Boolean.TRUE);
+                wordStart = -1;
+                sampledWords++;
+            }
+            if( halfwayWords == 0 && pos >= sampledChars / 2 ) {
+                halfwayWords = sampledWords;
+                halfwayUnique = seen.size();
+            }
+        }
+
+        if( sampledChars == 0 || sampledWords == 0 ) {
+            reasons.add("no words sampled");
+            return 0;
+        }
+
+        long projectedWords = (long)(1.0 * sampledWords * fileBytes / sampledChars);
+        double growth = sampledWords > halfwayWords && halfwayWords > 0
+                ? 1.0 * (seen.size() - halfwayUnique) / (sampledWords - halfwayWords)
+                : 1.0 * seen.size() / sampledWords;
+        long projectedUnique = seen.size() + (long)(growth * Math.max(0, projectedWords - sampledWords));
+
+        reasons.add(String.format("sampled %d words, %d unique, %.3f new words/word, ~%d unique projected",
+                sampledWords, seen.size(), growth, projectedUnique));
+        return projectedUnique;
+    }
+}
+
 //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 //
 // well, that's the goal, at least
@@ -315,6 +818,10 @@ class SlowCounter extends WordFrequencyCounterBase {
             }
             stored = stored.concat(next);
         }
+        // some letters don't survive the round trip (sharp s -> SS, dotless i -> I); those words are stored as-is
+        if( !stored.toLowerCase().equals(word.toLowerCase())) {
+            return word;
+        }
         return stored;
     }
 
@@ -323,9 +830,10 @@ class SlowCounter extends WordFrequencyCounterBase {
         char[] buff = new char[word.length()];
         for( int i = 0; i < word.length(); i++) {
             buff[i] = word.charAt(i);
-            uppered = uppered.concat(new String(new char[]{buff[i]}).toUpperCase());
+            uppered = uppered.concat(new String(new char[]{buff[i]}));
         }
-        return uppered;
+        // case the whole word at once; a char at a time gets final sigma & friends wrong
+        return uppered.toUpperCase();
 
     }
 
@@ -334,9 +842,10 @@ class SlowCounter extends WordFrequencyCounterBase {
         char[] buff = new char[word.length()];
         for( int i = 0; i < word.length(); i++) {
             buff[i] = word.charAt(i);
-            lowered = lowered.concat(new String(new char[]{buff[i]}).toLowerCase());
+            lowered = lowered.concat(new String(new char[]{buff[i]}));
         }
-        return lowered;
+        // case the whole word at once; a char at a time gets final sigma & friends wrong
+        return lowered.toLowerCase();
 
     }
 
@@ -351,18 +860,9 @@ class SlowCounter extends WordFrequencyCounterBase {
             WordCounter newItem = null;
             for( WordCounter item : wordCounterList ) {
                 activeIndex++;
-                if( false
-                        || wordsEqual(toUpperCase(item.word),toLowerCase(word))
-                        || wordsEqual(toLowerCase(item.word),toUpperCase(word))
-                        || wordsEqual(item.word,toUpperCase(word))
-                        // || wordsEqual(toUpperCase(item.word),word)
-                        || wordsEqual(item.word,toLowerCase(word))
-                        // || wordsEqual(toLowerCase(item.word),word)
-                        || wordsEqual(item.word,word)
-                        || wordsEqual(storedCase(item.word),storedCase(word))
-                        || wordsEqual(toLowerCase(item.word),toLowerCase(word))
-                        || item.word.toLowerCase().equals(word.toLowerCase())
-                        ) {
+                // only lower-to-lower is a real match; the upper/lower cross-comparisons
+                // wrongly tied words like dotless i & i (both upper to I)
+                if( wordsEqual(toLowerCase(item.word),toLowerCase(word))) {
                     newItem = new WordCounter(storedCase(word),item.counter + 1);
                     foundIndex = activeIndex;
                         
@@ -418,6 +918,11 @@ class SlowCounter extends WordFrequencyCounterBase {
     }
 
     public void finish() throws IOException {
+        // no words at all (empty or whitespace-only file), so no list was ever made
+        if( wordCounterList == null ) {
+            System.out.println();
+            return;
+        }
         for( int index = wordCounterList.size(); index-- > 0; ) {
             assert( wordCounts.containsKey(toLowerCase(wordCounterList.get(index).word)));
             wordCounterList.remove(index);
@@ -450,7 +955,13 @@ class FastCounter2 extends WordFrequencyCounterBase {
     List<String> lines;
 
     public void setup(File testFile) throws IOException {
-        lines = Files.readAllLines(Path.of(testFile.getAbsolutePath()));
+        // same platform charset as the other engines' FileReader (Files.readAllLines() is always UTF-8)
+        try( BufferedReader reader = new BufferedReader(new FileReader(testFile))) {
+            lines = new ArrayList<>();
+            for( String line; (line = reader.readLine()) != null; ) {
+                lines.add(line);
+            }
+        }
     }
 
     int lineNum = 0;
@@ -649,27 +1160,1025 @@ class FastCounter extends WordFrequencyCounterBase {
     }
 }
 
-abstract class WordFrequencyCounterBase implements IWordFrequencyCounter {
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// batched impl; no regex, no String per word
+//
+// the tokenizer scans a read buffer into (offset, length, hash) triples,
+// and the counter probes its own open-addressing table straight off the buffer's chars,
+// only making a String the first time it sees a word
+//
+// the table only holds all-ASCII words, where folding case a char at a time is exactly String.toLowerCase();
+// any word w/ a char past ASCII (final sigma, dotted I, &c) takes the plain map, every time it shows up
+//
+class BatchCounter extends WordFrequencyCounterBase implements IBatchedWordFrequencyCounter {
 
-    Map<String,Integer> wordCounts = new HashMap<>();
+    static final int FILE_BUFF_SIZE = 64*1024;
+    static final int INITIAL_TABLE_SIZE = 4*1024;
 
-    public Map<String, Integer> getWordCounts() {
-        return wordCounts;
-    }
-    
-    
-    public void processWord(String nextWord) {
-        String key = nextWord.toLowerCase();
-        Integer countSoFar = wordCounts.get(key);
-        boolean firstTime = countSoFar == null || countSoFar.intValue() == 0;
-        if( !firstTime ) {
-            countSoFar++;
-        }
-        else {
-            countSoFar = Integer.valueOf(1);
-        }
-        wordCounts.put(key, countSoFar);
+    // false under e.g. a Turkish locale, where "I".toLowerCase() is a dotless i; then nothing goes in the table
+    static final boolean ASCII_LOWERS_PLAINLY =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+
+    FileReader fileReader;
+    char buff[] = new char[FILE_BUFF_SIZE];
+    int charsInBuff = 0;
+    // where the word cut off by the end of the last read starts, -1 if none
+    int partialWordAt = -1;
+    boolean eof = false;
+
+    // the table: lower-cased words & their counts, parallel arrays indexed by slot
+    char[][] keys = new char[INITIAL_TABLE_SIZE][];
+    int[] keyHashes = new int[INITIAL_TABLE_SIZE];
+    int[] counts = new int[INITIAL_TABLE_SIZE];
+    int uniqueWords = 0;
+
+    // for callers still on the word-at-a-time contract
+    WordBatch pendingBatch = new WordBatch();
+    int pendingIndex = 0;
+    WordBatch singleBatch = new WordBatch();
+
+    public void setup(File testFile) throws IOException {
+        fileReader = new FileReader(testFile);
+        charsInBuff = 0;
+        partialWordAt = -1;
+        eof = false;
 
+        keys = new char[INITIAL_TABLE_SIZE][];
+        keyHashes = new int[INITIAL_TABLE_SIZE];
+        counts = new int[INITIAL_TABLE_SIZE];
+        uniqueWords = 0;
+        pendingBatch.clear();
+        pendingIndex = 0;
+
+        wordCounts.clear();
     }
 
-}
\ No newline at end of file
+    public boolean nextBatch(WordBatch batch) throws IOException {
+        batch.clear();
+        batch.share(buff);
+
+        while( batch.size() == 0 ) {
+            // slide whatever word got cut off last time to the front, growing the buffer for huge words
+            int carried = partialWordAt < 0 ? 0 : charsInBuff - partialWordAt;
+            if( carried > 0 ) {
+                if( carried == buff.length ) {
+                    buff = Arrays.copyOf(buff, buff.length * 2);
+                    batch.share(buff);
+                }
+                else {
+                    System.arraycopy(buff, partialWordAt, buff, 0, carried);
+                }
+            }
+            charsInBuff = carried;
+            partialWordAt = -1;
+
+            if( eof ) {
+                return false;
+            }
+
+            int actuallyRead = fileReader.read(buff, carried, buff.length - carried);
+            if( actuallyRead < 0 ) {
+                eof = true;
+                if( carried == 0 ) {
+                    return false;
+                }
+                // last word in the file, no whitespace after it
+                batch.add(0, carried, WordBatch.hash(buff, 0, carried));
+                return true;
+            }
+            charsInBuff = carried + actuallyRead;
+
+            int wordStart = -1;
+            int hash = 0;
+            for( int pos = 0; pos < charsInBuff; pos++ ) {
+                char c = buff[pos];
+                if( c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' ) {
+                    if( wordStart >= 0 ) {
+                        batch.add(wordStart, pos - wordStart, hash);
+                        wordStart = -1;
+                    }
+                }
+                else {
+                    if( wordStart < 0 ) {
+                        wordStart = pos;
+                        hash = 0;
+                    }
+                    hash = 31 * hash + WordBatch.lower(c);
+                }
+            }
+            partialWordAt = wordStart;
+        }
+        return true;
+    }
+
+    ////
+    // the tight loop: hash already in hand, compare chars in place, bump a count
+    //
+    public void processBatch(WordBatch batch) {
+        if( batch.hasStrings()) {
+            // e.g. from WordBatchAdapter; no triples to probe with, take them a word at a time
+            for( int index = 0; index < batch.size(); index++ ) {
+                processWord(batch.word(index));
+            }
+            return;
+        }
+        if( !ASCII_LOWERS_PLAINLY ) {
+            for( int index = 0; index < batch.size(); index++ ) {
+                super.processWord(batch.word(index));
+            }
+            return;
+        }
+
+        char[] chars = batch.chars;
+        int[] offsets = batch.offsets;
+        int[] lengths = batch.lengths;
+        int[] hashes = batch.hashes;
+        for( int index = 0, size = batch.size(); index < size; index++ ) {
+            int offset = offsets[index];
+            int length = lengths[index];
+            int hash = hashes[index];
+            int mask = keys.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for( ;; ) {
+                char[] key = keys[slot];
+                if( key == null ) {
+                    // a new word, or one w/ chars past ASCII (those never match an all-ASCII key)
+                    addWord(chars, offset, length, hash, slot);
+                    break;
+                }
+                if( keyHashes[slot] == hash && matches(key, chars, offset, length)) {
+                    counts[slot]++;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    static boolean matches(char[] key, char[] chars, int offset, int length) {
+        if( key.length != length ) {
+            return false;
+        }
+        for( int pos = 0; pos < length; pos++ ) {
+            if( key[pos] != WordBatch.lower(chars[offset + pos])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addWord(char[] chars, int offset, int length, int hash, int slot) {
+        for( int pos = offset; pos < offset + length; pos++ ) {
+            if( chars[pos] >= 128 ) {
+                super.processWord(new String(chars, offset, length));
+                return;
+            }
+        }
+
+        char[] key = new char[length];
+        for( int pos = 0; pos < length; pos++ ) {
+            key[pos] = WordBatch.lower(chars[offset + pos]);
+        }
+        keys[slot] = key;
+        keyHashes[slot] = hash;
+        counts[slot] = 1;
+        uniqueWords++;
+
+        // keep the table under 2/3 full so probes stay short
+        if( uniqueWords * 3 > keys.length * 2 ) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        char[][] oldKeys = keys;
+        int[] oldHashes = keyHashes;
+        int[] oldCounts = counts;
+        keys = new char[oldKeys.length * 2][];
+        keyHashes = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for( int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++ ) {
+            if( oldKeys[oldSlot] == null ) {
+                continue;
+            }
+            int hash = oldHashes[oldSlot];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while( keys[slot] != null ) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[oldSlot];
+            keyHashes[slot] = hash;
+            counts[slot] = oldCounts[oldSlot];
+        }
+    }
+
+    public String getNextWord() throws IOException {
+        if( pendingIndex >= pendingBatch.size()) {
+            pendingIndex = 0;
+            if( !nextBatch(pendingBatch)) {
+                return null;
+            }
+        }
+        return pendingBatch.word(pendingIndex++);
+    }
+
+    public void processWord(String nextWord) {
+        singleBatch.clear();
+        singleBatch.append(nextWord);
+        processBatch(singleBatch);
+    }
+
+    public void finish() throws IOException {
+        if( fileReader != null ) {
+            fileReader.close();
+        }
+
+        // fold the table into the common map, on top of any words that went the plain route
+        for( int slot = 0; slot < keys.length; slot++ ) {
+            if( keys[slot] != null ) {
+                wordCounts.merge(new String(keys[slot]), counts[slot], Integer::sum);
+            }
+        }
+        keys = new char[INITIAL_TABLE_SIZE][];
+        keyHashes = new int[INITIAL_TABLE_SIZE];
+        counts = new int[INITIAL_TABLE_SIZE];
+        uniqueWords = 0;
+    }
+}
+
+abstract class WordFrequencyCounterBase implements IWordFrequencyCounter {
+
+    Map<String,Integer> wordCounts = new HashMap<>();
+
+    public Map<String, Integer> getWordCounts() {
+        return wordCounts;
+    }
+    
+    
+    public void processWord(String nextWord) {
+        String key = nextWord.toLowerCase();
+        Integer countSoFar = wordCounts.get(key);
+        boolean firstTime = countSoFar == null || countSoFar.intValue() == 0;
+        if( !firstTime ) {
+            countSoFar++;
+        }
+        else {
+            countSoFar = Integer.valueOf(1);
+        }
+        wordCounts.put(key, countSoFar);
+
+    }
+
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// saved word counts, one `word<TAB>count` per line
+//
+// tables we write are sorted by word and say so in the header,
+// which lets the comparer stream them instead of loading them;
+// hand-made tables (either `word<TAB>count` or the console's `word: count`) are fine too, just slower
+//
+class CountTable {
+
+    static final String SORTED_HEADER = "# word counts, sorted by word";
+
+    public static void write(Map<String,Integer> wordCounts, File tableFile) throws IOException {
+        List<String> words = new ArrayList<>(wordCounts.keySet());
+        words.sort(Comparator.naturalOrder());
+        try( CountTableWriter writer = new CountTableWriter(tableFile)) {
+            for( String word : words ) {
+                writer.write(word, wordCounts.get(word));
+            }
+        }
+    }
+
+    public static Map<String,Long> read(File tableFile) throws IOException {
+        Map<String,Long> counts = new HashMap<>();
+        try( CountTableReader reader = new CountTableReader(tableFile)) {
+            while( reader.next()) {
+                counts.merge(reader.word(), reader.count(), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    public static boolean isSorted(File tableFile) throws IOException {
+        try( CountTableReader reader = new CountTableReader(tableFile)) {
+            return reader.isSorted();
+        }
+    }
+}
+
+class CountTableWriter implements AutoCloseable {
+
+    BufferedWriter writer;
+
+    public CountTableWriter(File tableFile) throws IOException {
+        writer = new BufferedWriter(new FileWriter(tableFile, StandardCharsets.UTF_8));
+        writer.write(CountTable.SORTED_HEADER);
+        writer.newLine();
+    }
+
+    public void write(String word, long count) throws IOException {
+        writer.write(word);
+        writer.write('\t');
+        writer.write(Long.toString(count));
+        writer.newLine();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
+
+//
+// streams a table one entry at a time;
+// for sorted tables, also makes sure the order we were promised is the order we get
+//
+class CountTableReader implements AutoCloseable {
+
+    File tableFile;
+    BufferedReader reader;
+    boolean sorted;
+    int lineNum = 0;
+    String pendingLine;
+
+    String word;
+    long count;
+
+    public CountTableReader(File tableFile) throws IOException {
+        this.tableFile = tableFile;
+        reader = new BufferedReader(new FileReader(tableFile, StandardCharsets.UTF_8));
+        pendingLine = reader.readLine();
+        if( pendingLine != null && pendingLine.equals(CountTable.SORTED_HEADER)) {
+            sorted = true;
+            pendingLine = null;
+            lineNum++;
+        }
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public String word() {
+        return word;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    ////
+    // advance to the next entry, false at end of table
+    //
+    public boolean next() throws IOException {
+        for( ;; ) {
+            String line = pendingLine != null ? pendingLine : reader.readLine();
+            pendingLine = null;
+            if( line == null ) {
+                word = null;
+                return false;
+            }
+            lineNum++;
+
+            // only the first line can be the header (see the constructor); `#include` is a perfectly good word
+            if( line.isEmpty()) {
+                continue;
+            }
+
+            // words never contain whitespace, so the last separator splits word from count
+            String nextWord;
+            int sep = line.lastIndexOf('\t');
+            if( sep >= 0 ) {
+                nextWord = line.substring(0, sep);
+            }
+            else {
+                sep = line.lastIndexOf(' ');
+                if( sep < 0 ) {
+                    throw new IOException(tableFile + ":" + lineNum + " missing count");
+                }
+                nextWord = line.substring(0, sep);
+                if( nextWord.endsWith(":")) {
+                    nextWord = nextWord.substring(0, nextWord.length() - 1);
+                }
+            }
+
+            long nextCount;
+            try {
+                nextCount = Long.parseLong(line.substring(sep + 1));
+            }
+            catch( NumberFormatException ex ) {
+                throw new IOException(tableFile + ":" + lineNum + " bad count");
+            }
+
+            if( sorted && word != null && word.compareTo(nextWord) >= 0 ) {
+                throw new IOException(tableFile + ":" + lineNum + " out of order, `" + nextWord + "` after `" + word + "`");
+            }
+
+            word = nextWord;
+            count = nextCount;
+            return true;
+        }
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+}
+
+interface ICountTableDiffListener {
+
+    public void added(String word, long count);
+    public void removed(String word, long count);
+    public void changed(String word, long oldCount, long newCount);
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// diff & merge of two count tables in time linear in their sizes:
+// a streaming sorted-merge when both tables are sorted, a hash-join otherwise
+//
+class CountTableComparer {
+
+    ////
+    // reports words only in tableB as added, words only in tableA as removed,
+    // and words whose counts differ by more than threshold as changed
+    //
+    public static void diff(File tableA, File tableB, long threshold, ICountTableDiffListener listener) throws IOException {
+        if( CountTable.isSorted(tableA) && CountTable.isSorted(tableB)) {
+            try( CountTableReader a = new CountTableReader(tableA);
+                 CountTableReader b = new CountTableReader(tableB)) {
+                boolean moreA = a.next(), moreB = b.next();
+                while( moreA || moreB ) {
+                    int cmp = !moreA ? 1 : !moreB ? -1 : a.word().compareTo(b.word());
+                    if( cmp < 0 ) {
+                        listener.removed(a.word(), a.count());
+                        moreA = a.next();
+                    }
+                    else if( cmp > 0 ) {
+                        listener.added(b.word(), b.count());
+                        moreB = b.next();
+                    }
+                    else {
+                        if( Math.abs(b.count() - a.count()) > threshold ) {
+                            listener.changed(a.word(), a.count(), b.count());
+                        }
+                        moreA = a.next();
+                        moreB = b.next();
+                    }
+                }
+            }
+            return;
+        }
+
+        // hash-join; unsorted tables may list a word more than once, so both sides are summed up front
+        Map<String,Long> countsA = CountTable.read(tableA);
+        Map<String,Long> countsB = CountTable.read(tableB);
+        for( Map.Entry<String,Long> entryA : countsA.entrySet()) {
+            Long countB = countsB.remove(entryA.getKey());
+            if( countB == null ) {
+                listener.removed(entryA.getKey(), entryA.getValue());
+            }
+            else if( Math.abs(countB - entryA.getValue()) > threshold ) {
+                listener.changed(entryA.getKey(), entryA.getValue(), countB);
+            }
+        }
+        for( Map.Entry<String,Long> entryB : countsB.entrySet()) {
+            listener.added(entryB.getKey(), entryB.getValue());
+        }
+    }
+
+    ////
+    // sums the counts of both tables into outputTable (always written sorted);
+    // returns the # of unique words written
+    //
+    // written to a temp file next to outputTable & renamed over it at the end,
+    // so outputTable can be one of the inputs & a failed merge leaves it alone
+    //
+    public static long merge(File tableA, File tableB, File outputTable) throws IOException {
+        File outputDir = outputTable.getAbsoluteFile().getParentFile();
+        File tempTable = File.createTempFile(outputTable.getName() + ".", ".tmp", outputDir);
+        try {
+            long uniqueWords = mergeInto(tableA, tableB, tempTable);
+            Files.move(tempTable.toPath(), outputTable.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return uniqueWords;
+        }
+        finally {
+            tempTable.delete();
+        }
+    }
+
+    private static long mergeInto(File tableA, File tableB, File outputTable) throws IOException {
+        long uniqueWords = 0;
+        if( CountTable.isSorted(tableA) && CountTable.isSorted(tableB)) {
+            try( CountTableReader a = new CountTableReader(tableA);
+                 CountTableReader b = new CountTableReader(tableB);
+                 CountTableWriter out = new CountTableWriter(outputTable)) {
+                boolean moreA = a.next(), moreB = b.next();
+                while( moreA || moreB ) {
+                    int cmp = !moreA ? 1 : !moreB ? -1 : a.word().compareTo(b.word());
+                    if( cmp < 0 ) {
+                        out.write(a.word(), a.count());
+                        moreA = a.next();
+                    }
+                    else if( cmp > 0 ) {
+                        out.write(b.word(), b.count());
+                        moreB = b.next();
+                    }
+                    else {
+                        out.write(a.word(), a.count() + b.count());
+                        moreA = a.next();
+                        moreB = b.next();
+                    }
+                    uniqueWords++;
+                }
+            }
+            return uniqueWords;
+        }
+
+        // hash-join, then sort once on the way out so the result can be streamed next time
+        Map<String,Long> merged = CountTable.read(tableA);
+        try( CountTableReader b = new CountTableReader(tableB)) {
+            while( b.next()) {
+                merged.merge(b.word(), b.count(), Long::sum);
+            }
+        }
+        List<String> words = new ArrayList<>(merged.keySet());
+        words.sort(Comparator.naturalOrder());
+        try( CountTableWriter out = new CountTableWriter(outputTable)) {
+            for( String word : words ) {
+                out.write(word, merged.get(word));
+                uniqueWords++;
+            }
+        }
+        return uniqueWords;
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// deterministic, seeded test texts
+//
+// words are drawn from a fixed vocabulary w/ Zipf-distributed frequencies,
+// in random case, separated by every kind of whitespace the engines split on
+//
+// corpora are always written as UTF-8; the engines (and the oracle) read them w/ the platform charset,
+// so under a UTF-8 default the non-ASCII cases exercise case folding, otherwise the replacement chars
+//
+class CorpusGenerator {
+
+    static class Spec {
+        String name;
+        long seed = 1;
+        long targetChars = 64*1024;
+        int vocabulary = 1000;
+        double zipfExponent = 1.0;
+        int minWordsPerLine = 1;
+        int maxWordsPerLine = 20;
+        boolean trailingNewline = true;
+        // every so often drop in a word this long (0 for none), so words span read buffers
+        int hugeWordLength = 0;
+        // corpora big enough to time
+        boolean throughput = false;
+        // letters the vocabulary is built from
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+
+        Spec(String name) {
+            this.name = name;
+        }
+    }
+
+    static final String SEPARATORS[] = { " ", " ", " ", "  ", "\t", " \t ", "\f" };
+    static final String LINE_ENDINGS[] = { "\n", "\n", "\r\n" };
+
+    ////
+    // the standard suite the harness runs; the same seeds always produce the same files
+    //
+    public static List<Spec> standardSuite() {
+        List<Spec> suite = new ArrayList<>();
+
+        Spec spec = new Spec("small-zipf");
+        spec.targetChars = 4*1024;
+        spec.vocabulary = 200;
+        suite.add(spec);
+
+        spec = new Spec("small-flat-no-trailing-newline");
+        spec.seed = 2;
+        spec.targetChars = 4*1024;
+        spec.vocabulary = 50;
+        spec.zipfExponent = 0.0;
+        spec.trailingNewline = false;
+        suite.add(spec);
+
+        // letters whose String.toLowerCase() isn't char-for-char: final sigma, dotted I, Kelvin sign, &c
+        spec = new Spec("non-ascii-zipf");
+        spec.seed = 7;
+        spec.targetChars = 256*1024;
+        spec.vocabulary = 2000;
+        spec.alphabet = "abcxyz\u03b1\u03b2\u03b3\u03b4\u03b5\u03bf\u03c3\u03c2\u03a3\u039f\u0394\u0130I\u0131i\u00df\u00e9\u00c9\u00e7\u00c7\u00f8\u0416\u0436\u212a";
+        suite.add(spec);
+
+        // small enough for SlowCounter
+        spec = new Spec("small-non-ascii");
+        spec.seed = 8;
+        spec.targetChars = 3*1024;
+        spec.vocabulary = 100;
+        spec.alphabet = "ais\u0131\u0130I\u017fS\u03c3\u03c2\u03a3\u00df\u212a";
+        suite.add(spec);
+
+        spec = new Spec("long-lines");
+        spec.seed = 3;
+        spec.targetChars = 512*1024;
+        spec.vocabulary = 20000;
+        spec.minWordsPerLine = 5000;
+        spec.maxWordsPerLine = 20000;
+        suite.add(spec);
+
+        spec = new Spec("huge-words");
+        spec.seed = 4;
+        spec.targetChars = 1024*1024;
+        spec.vocabulary = 500;
+        spec.hugeWordLength = 150*1000;
+        suite.add(spec);
+
+        spec = new Spec("large-zipf");
+        spec.seed = 5;
+        spec.targetChars = 4*1024*1024;
+        spec.vocabulary = 100000;
+        spec.zipfExponent = 1.1;
+        spec.throughput = true;
+        suite.add(spec);
+
+        spec = new Spec("large-vocabulary");
+        spec.seed = 6;
+        spec.targetChars = 4*1024*1024;
+        spec.vocabulary = 1000000;
+        spec.zipfExponent = 0.8;
+        spec.throughput = true;
+        suite.add(spec);
+
+        return suite;
+    }
+
+    ////
+    // hand-written corner cases, name -> content
+    //
+    public static Map<String,String> edgeCases() {
+        Map<String,String> edgeCases = new LinkedHashMap<>();
+        edgeCases.put("empty", "");
+        edgeCases.put("whitespace-only", "  \r\n\t\f \n\n");
+        edgeCases.put("one-word", "Word");
+        edgeCases.put("no-trailing-newline", "alpha Beta\nALPHA beta gamma");
+        edgeCases.put("leading-and-crlf", "\r\n  \tOne two\r\nTWO one\r\n");
+        edgeCases.put("dotted-i", "ix \u0130x \u0130x IX \u0131x\n");
+        // one-letter words that upper-case to the same letter but lower-case apart
+        edgeCases.put("one-letter-folds", "i \u0131 I \u0130 s \u017f S k \u212a K\ni \u0131 s \u017f\n");
+        edgeCases.put("final-sigma", "\u03bf\u03b4\u03bf\u03c3 \u039f\u0394\u039f\u03a3 \u03bf\u03b4\u03bf\u03c2 \u039f\u03b4\u03cc\u03c2\n");
+        edgeCases.put("non-ascii-case", "Stra\u00dfe STRASSE stra\u00dfe \u00c9cole \u00c9COLE \u00e9cole Kelvin \u212aELVIN \u0416\u0423\u041a \u0436\u0443\u043a\n");
+        char[] huge = new char[200*1000];
+        Arrays.fill(huge, 'h');
+        edgeCases.put("single-huge-word", new String(huge));
+        // a word straddling the 64K read buffer boundary, with nothing else around it
+        char[] straddle = new char[64*1024 + 10];
+        Arrays.fill(straddle, ' ');
+        "Straddle".getChars(0, 8, straddle, 64*1024 - 4);
+        edgeCases.put("word-at-buffer-boundary", new String(straddle) + "straddle");
+        return edgeCases;
+    }
+
+    public static void generate(Spec spec, File corpusFile) throws IOException {
+        Random random = new Random(spec.seed);
+
+        String[] vocabulary = new String[spec.vocabulary];
+        for( int rank = 0; rank < vocabulary.length; rank++ ) {
+            vocabulary[rank] = vocabularyWord(random, spec.alphabet, rank);
+        }
+
+        // cumulative Zipf weights, 1/rank^s, for picking words by binary search
+        double[] cumulative = new double[vocabulary.length];
+        double total = 0;
+        for( int rank = 0; rank < vocabulary.length; rank++ ) {
+            total += 1.0 / Math.pow(rank + 1, spec.zipfExponent);
+            cumulative[rank] = total;
+        }
+
+        try( BufferedWriter writer = new BufferedWriter(new FileWriter(corpusFile, StandardCharsets.UTF_8))) {
+            long written = 0;
+            while( written < spec.targetChars ) {
+                int wordsInLine = spec.minWordsPerLine + random.nextInt(spec.maxWordsPerLine - spec.minWordsPerLine + 1);
+                for( int w = 0; w < wordsInLine; w++ ) {
+                    String word;
+                    if( spec.hugeWordLength > 0 && random.nextInt(5000) == 0 ) {
+                        char[] huge = new char[spec.hugeWordLength];
+                        Arrays.fill(huge, (char)('a' + random.nextInt(26)));
+                        word = new String(huge);
+                    }
+                    else {
+                        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                        word = vocabulary[Math.min(rank < 0 ? -rank - 1 : rank, vocabulary.length - 1)];
+                    }
+                    word = randomCase(random, word);
+                    if( w > 0 ) {
+                        String separator = SEPARATORS[random.nextInt(SEPARATORS.length)];
+                        writer.write(separator);
+                        written += separator.length();
+                    }
+                    writer.write(word);
+                    written += word.length();
+                }
+
+                if( written < spec.targetChars || spec.trailingNewline ) {
+                    String lineEnding = LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)];
+                    writer.write(lineEnding);
+                    written += lineEnding.length();
+                }
+            }
+        }
+    }
+
+    public static void write(String content, File corpusFile) throws IOException {
+        try( BufferedWriter writer = new BufferedWriter(new FileWriter(corpusFile, StandardCharsets.UTF_8))) {
+            writer.write(content);
+        }
+    }
+
+    // a few random letters plus the rank spelled in base 26, so ranks can't collide
+    static String vocabularyWord(Random random, String alphabet, int rank) {
+        StringBuilder word = new StringBuilder();
+        for( int prefix = random.nextInt(6); prefix-- > 0; ) {
+            word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        word.append('_');
+        do {
+            word.append((char)('a' + rank % 26));
+            rank /= 26;
+        } while( rank > 0 );
+        return word.toString();
+    }
+
+    static String randomCase(Random random, String word) {
+        switch( random.nextInt(4)) {
+            case 0:
+                return word.toUpperCase();
+            case 1:
+                return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            default:
+                return word;
+        }
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// the simplest thing that could possibly be right; every engine is checked against it
+//
+class OracleCounter {
+
+    public static Map<String,Integer> count(File testFile) throws IOException {
+        // same charset as the engines' FileReader, malformed input replaced the same way
+        String content = new String(Files.readAllBytes(testFile.toPath()), Charset.defaultCharset());
+        Map<String,Integer> wordCounts = new HashMap<>();
+        int start = -1;
+        for( int pos = 0; pos <= content.length(); pos++ ) {
+            char c = pos < content.length() ? content.charAt(pos) : ' ';
+            boolean whitespace = c == ' ' || c == '\r' || c == '\n' || c == '\t' || c == '\f';
+            if( !whitespace && start < 0 ) {
+                start = pos;
+            }
+            else if( whitespace && start >= 0 ) {
+                wordCounts.merge(content.substring(start, pos).toLowerCase(), 1, Integer::sum);
+                start = -1;
+            }
+        }
+        return wordCounts;
+    }
+}
+
+//////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+//
+// runs every engine over the generated corpora & edge cases, checks each against the oracle,
+// and appends the big corpora's throughput to a history file;
+// a mismatch, or throughput well under the recent median, fails the run
+//
+class RegressionHarness {
+
+    static final String DEFAULT_HISTORY_FILE = "JeffR_Harness_History.txt";
+
+    // SlowCounter is quadratic; keep it to inputs it can finish before lunch
+    static final long SLOW_ENGINE_MAX_CHARS = 8*1024;
+
+    // after a warm-up run, time at least this many runs & for at least this long, and take the median;
+    // a best-of-few on 70ms runs swung by a third between identical trees
+    static final int MIN_TIMED_RUNS = 5;
+    static final long MIN_TIMED_NANOS = 3_000_000_000L;
+
+    // history lines are tagged w/ how they were measured, so older best-of-3 lines don't skew the baseline
+    static final String MEASURE = "median";
+    static final int HISTORY_WINDOW = 10;
+    // don't fail anything until there's a baseline worth the name
+    static final int MIN_HISTORY = 5;
+    static final double REGRESSION_TOLERANCE = 0.40;
+
+    public static int run(File historyFile) {
+        int failures = 0;
+        File corpusDir = null;
+        try {
+            corpusDir = Files.createTempDirectory("wordcount-corpora").toFile();
+
+            System.out.println();
+            System.out.println( "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+            System.out.println("Generating corpora in " + corpusDir.getCanonicalPath() + "...");
+
+            List<File> corpora = new ArrayList<>();
+            List<File> timedCorpora = new ArrayList<>();
+            for( Map.Entry<String,String> edgeCase : CorpusGenerator.edgeCases().entrySet()) {
+                File corpusFile = new File(corpusDir, edgeCase.getKey() + ".txt");
+                CorpusGenerator.write(edgeCase.getValue(), corpusFile);
+                corpora.add(corpusFile);
+            }
+            for( CorpusGenerator.Spec spec : CorpusGenerator.standardSuite()) {
+                File corpusFile = new File(corpusDir, spec.name + ".txt");
+                CorpusGenerator.generate(spec, corpusFile);
+                corpora.add(corpusFile);
+                if( spec.throughput ) {
+                    timedCorpora.add(corpusFile);
+                }
+            }
+
+            System.out.println( "-----------");
+            System.out.println( "Correctness");
+            System.out.println( "-----------");
+            for( File corpusFile : corpora ) {
+                Map<String,Integer> expected = OracleCounter.count(corpusFile);
+                for( String engine : WordFrequencyCounterSelector.ENGINES ) {
+                    String label = engine + " " + corpusFile.getName();
+                    if( engine.equals("slow") && corpusFile.length() > SLOW_ENGINE_MAX_CHARS ) {
+                        System.out.println("skip " + label);
+                        continue;
+                    }
+                    String mismatch = compare(expected, quietly(engine, corpusFile));
+                    if( mismatch == null ) {
+                        System.out.println("ok   " + label);
+                    }
+                    else {
+                        System.out.println("FAIL " + label + ": " + mismatch);
+                        failures++;
+                    }
+                }
+            }
+
+            System.out.println( "----------");
+            System.out.println( "Throughput");
+            System.out.println( "----------");
+            List<String> history = historyFile.exists() ? Files.readAllLines(historyFile.toPath()) : new ArrayList<>();
+            List<String> newHistory = new ArrayList<>();
+            long runStamp = System.currentTimeMillis();
+            for( File corpusFile : timedCorpora ) {
+                String corpusName = corpusFile.getName();
+                long totalWords = 0;
+                for( int count : OracleCounter.count(corpusFile).values()) {
+                    totalWords += count;
+                }
+                for( String engine : WordFrequencyCounterSelector.ENGINES ) {
+                    if( engine.equals("slow")) {
+                        continue;
+                    }
+                    long medianNanos = timeMedianNanos(engine, corpusFile);
+                    double mbPerSec = megabytesPerSecond(corpusFile.length(), medianNanos);
+
+                    List<Double> baseline = recentThroughput(history, engine, corpusName);
+                    String verdict;
+                    if( baseline.size() < MIN_HISTORY ) {
+                        verdict = " (baseline " + baseline.size() + "/" + MIN_HISTORY + " runs, not checked)";
+                    }
+                    else {
+                        double median = median(baseline);
+                        if( mbPerSec < median * (1 - REGRESSION_TOLERANCE)) {
+                            verdict = String.format(" SLOWDOWN vs. median %.1fMB/s", median);
+                            failures++;
+                        }
+                        else {
+                            verdict = String.format(" (median %.1fMB/s)", median);
+                        }
+                    }
+                    System.out.println(String.format("%-6s %-22s %8.1fMB/s %7.1fns/word in %s%s",
+                            engine, corpusName, mbPerSec, 1.0 * medianNanos / Math.max(1, totalWords),
+                            JeffR_Solution.timeElapsed(medianNanos), verdict));
+
+                    newHistory.add(runStamp + "\t" + engine + "\t" + corpusName + "\t" + corpusFile.length() + "\t" + medianNanos + "\t" + MEASURE);
+                }
+            }
+            Files.write(historyFile.toPath(), newHistory,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            System.out.println( "___________");
+            System.out.println( "...Harness " + (failures == 0 ? "passed" : "FAILED with " + failures + " failures")
+                    + ", throughput history in " + historyFile.getCanonicalPath());
+            System.out.println( "===========");
+        }
+        catch( IOException ex) {
+            System.err.println("Failure Processing " + ex.getClass().getName() + " " + ex.getMessage());
+            return -(0x1F); // DOS general failure
+        }
+        finally {
+            if( corpusDir != null ) {
+                for( File corpusFile : corpusDir.listFiles()) {
+                    corpusFile.delete();
+                }
+                corpusDir.delete();
+            }
+        }
+
+        return failures == 0 ? 0 : -(0x1F); // DOS general failure
+    }
+
+    ////
+    // runs an engine w/ the console muted; SlowCounter echoes every char it reads
+    //
+    static Map<String,Integer> quietly(String engine, File corpusFile) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return JeffR_Solution.countWords(WordFrequencyCounterSelector.create(engine), corpusFile);
+        }
+        catch( RuntimeException ex ) {
+            // an engine blowing up is just another wrong answer
+            Map<String,Integer> failed = new HashMap<>();
+            failed.put("<" + ex + ">", -1);
+            return failed;
+        }
+        finally {
+            System.setOut(console);
+        }
+    }
+
+    // null if the counts match, otherwise the first difference found
+    static String compare(Map<String,Integer> expected, Map<String,Integer> actual) {
+        for( Map.Entry<String,Integer> entry : expected.entrySet()) {
+            Integer actualCount = actual.get(entry.getKey());
+            if( !entry.getValue().equals(actualCount)) {
+                return "`" + abbreviate(entry.getKey()) + "` expected " + entry.getValue() + " got " + actualCount;
+            }
+        }
+        for( Map.Entry<String,Integer> entry : actual.entrySet()) {
+            if( !expected.containsKey(entry.getKey())) {
+                return "unexpected `" + abbreviate(entry.getKey()) + "` " + entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    static String abbreviate(String word) {
+        return word.length() <= 40 ? word : word.substring(0, 40) + "...(" + word.length() + " chars)";
+    }
+
+    static double megabytesPerSecond(long bytes, long nanos) {
+        return (bytes / (1024.0*1024.0)) / (nanos / 1e9);
+    }
+
+    ////
+    // one warm-up run, then at least MIN_TIMED_RUNS runs & MIN_TIMED_NANOS in all; median of the runs
+    //
+    static long timeMedianNanos(String engine, File corpusFile) throws IOException {
+        quietly(engine, corpusFile);
+
+        List<Long> runs = new ArrayList<>();
+        long totalNanos = 0;
+        while( runs.size() < MIN_TIMED_RUNS || totalNanos < MIN_TIMED_NANOS ) {
+            long startTime = System.nanoTime();
+            quietly(engine, corpusFile);
+            long elapsed = System.nanoTime() - startTime;
+            runs.add(elapsed);
+            totalNanos += elapsed;
+        }
+        Collections.sort(runs);
+        return runs.get(runs.size() / 2);
+    }
+
+    // MB/s of the last HISTORY_WINDOW runs of this engine on this corpus, oldest first
+    static List<Double> recentThroughput(List<String> history, String engine, String corpusName) {
+        List<Double> recent = new ArrayList<>();
+        for( String line : history ) {
+            String[] fields = line.split("\t");
+            if( fields.length == 6 && fields[5].equals(MEASURE) && fields[1].equals(engine) && fields[2].equals(corpusName)) {
+                try {
+                    recent.add(megabytesPerSecond(Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                }
+                catch( NumberFormatException ex ) {
+                    // a mangled line says nothing about throughput; skip it
+                }
+            }
+        }
+        return new ArrayList<>(recent.subList(Math.max(0, recent.size() - HISTORY_WINDOW), recent.size()));
+    }
+
+    static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}